@@ -0,0 +1,55 @@
+public class AdaptiveLockFreeVector<T> extends LockFreeVectorWithCombining<T> {
+
+	/*
+	 * Dechev et al.'s vector is faster at low contention, and Walulya et al.'s combining vector is 
+	 * faster at high contention. This vector switches between the two at runtime.
+	 * 
+	 * Both modes use the same descriptor and buckets (the ones from LockFreeVectorWithCombining), 
+	 * so switching doesn't copy anything or block anyone. The only difference is what happens 
+	 * when a pushback or popback loses its descriptor CAS:
+	 * 		- Plain mode: it tries again, like in Dechev et al.'s vector. Any combining queue that's 
+	 * 		  left over from combining mode is flushed by the next pushback or popback.
+	 * 		- Combining mode: it goes to the combining queue.
+	 * 
+	 * Each thread counts its own CAS attempts and failures (in its ThreadInfo), so measuring 
+	 * contention doesn't add any contention. Every WINDOW attempts, the thread checks its failure 
+	 * rate and switches modes if it's past one of the thresholds. The gap between the thresholds 
+	 * keeps the vector from flipping back and forth when the failure rate is near one of them.
+	 */
+
+	static final int WINDOW = 256; // CAS attempts per thread between checks.
+	static final double COMBINE_THRESHOLD = 0.25; // Switch to combining above this failure rate.
+	static final double PLAIN_THRESHOLD = 0.05; // Switch back to plain below this failure rate.
+	volatile boolean combining;
+
+	public AdaptiveLockFreeVector() {
+		super();
+		combining = false;
+	}
+
+	public AdaptiveLockFreeVector(int size) {
+		super(size);
+		combining = false;
+	}
+
+	@Override
+	boolean shouldCombine() {
+		return combining;
+	}
+
+	@Override
+	void recordCas(ThreadInfo<T> threadInfo, boolean succeeded) {
+		threadInfo.casAttempts++;
+		if (!succeeded) threadInfo.casFailures++;
+		if (threadInfo.casAttempts < WINDOW) return;
+
+		double failureRate = (double) threadInfo.casFailures / threadInfo.casAttempts;
+		threadInfo.casAttempts = 0;
+		threadInfo.casFailures = 0;
+
+		// Only write to combining when the mode changes, so threads don't invalidate each other's 
+		// cached copy of it.
+		if (!combining && failureRate > COMBINE_THRESHOLD) combining = true;
+		else if (combining && failureRate < PLAIN_THRESHOLD) combining = false;
+	}
+}
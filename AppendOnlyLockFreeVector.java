@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class AppendOnlyLockFreeVector<T> {
+
+	/*
+	 * A version of LockFreeVector for workloads that only ever push (eg. logs and event capture).
+	 * 
+	 * Since there's no popBack(), pushBack() doesn't need a descriptor. Instead, each push claims 
+	 * an index with a single getAndIncrement() on tickets (so there's no retry loop), writes its 
+	 * element into the bucket, and then advances committed, the number of elements at the start 
+	 * of the vector that have all been written. size(), peek() and readAt() only look at those 
+	 * first committed elements, so they never see an index that's been claimed but not written.
+	 * 
+	 * How committed advances: After writing its element, a push moves committed forward over every 
+	 * written index it finds. If it reaches an index that hasn't been written yet, it stops, since 
+	 * the push that claimed that index will continue from there after writing it. Claiming and 
+	 * writing are wait-free; advancing committed is lock-free, and only loops over elements that 
+	 * have already been written.
+	 * 
+	 * An unwritten index is null, so null elements aren't allowed. This class doesn't implement 
+	 * ConcurrentVector, since it has no popBack().
+	 */
+
+	static final int FBS = 2; // First bucket size; can be any power of 2.
+	AtomicInteger tickets, committed;
+	AtomicReferenceArray<AtomicReferenceArray<T>> vals;
+
+	public AppendOnlyLockFreeVector() {
+		tickets = new AtomicInteger(0);
+		committed = new AtomicInteger(0);
+		vals = new AtomicReferenceArray<AtomicReferenceArray<T>>(32);
+		vals.getAndSet(0, new AtomicReferenceArray<T>(FBS));
+	}
+
+	public void pushBack(T newElement) {
+		if (newElement == null) throw new NullPointerException();
+		
+		int idx = tickets.getAndIncrement(); // Claim an index.
+		
+		// Determine which bucket this element will go in.
+		int bucketIdx = getBucket(idx);
+		// If the appropriate bucket doesn't exist, create it.
+		if (vals.get(bucketIdx) == null) allocateBucket(bucketIdx);
+		
+		vals.get(bucketIdx).set(getIdxWithinBucket(idx), newElement);
+		advanceCommitted();
+	}
+
+	public T peek() {
+		int size = committed.get();
+		if (size == 0) return null;
+		else return readRefAt(size - 1);
+	}
+
+	public T readAt(int idx) {
+		if (idx < 0 || idx >= committed.get()) return null;
+		return readRefAt(idx);
+	}
+	private T readRefAt(int idx) {
+		// Does not perform bounds checking.
+		return vals.get(getBucket(idx)).get(getIdxWithinBucket(idx));
+	}
+
+	public int size() {
+		return committed.get();
+	}
+
+	// Move committed forward over every index that has been written.
+	private void advanceCommitted() {
+		int size = committed.get();
+		while (true) {
+			AtomicReferenceArray<T> bucket = vals.get(getBucket(size));
+			if (bucket == null || bucket.get(getIdxWithinBucket(size)) == null) {
+				return; // Not written yet. The push that claimed this index will take over.
+			}
+			// If our CAS fails, another push advanced committed, so we continue from there.
+			if (committed.compareAndSet(size, size + 1)) size++;
+			else size = committed.get();
+		}
+	}
+
+	// Create a new bucket.
+	private void allocateBucket(int bucketIdx) {
+		int bucketSize = 1 << (bucketIdx + highestBit(FBS));
+		AtomicReferenceArray<T> newBucket = new AtomicReferenceArray<T>(bucketSize);
+		if (!vals.compareAndSet(bucketIdx, null, newBucket)) {
+			// Do nothing, and let the GC free newBucket. (Another thread allocated the bucket or 
+			// it already existed.)
+		}
+	}
+
+	// Returns the index of the bucket for i (level zero of the array).
+	private int getBucket(int i) {
+		int pos = i + FBS;
+		int hiBit = highestBit(pos);
+		return hiBit - highestBit(FBS);
+	}
+	// Returns the index within the bucket for i (level one of the array).
+	private int getIdxWithinBucket(int i) {
+		int pos = i + FBS;
+		int hiBit = highestBit(pos);
+		return pos ^ (1 << hiBit);
+	}
+
+	// Returns the index of the highest one bit. eg. highestBit(8) = 3
+	private int highestBit(int n) {
+		return Integer.numberOfTrailingZeros(Integer.highestOneBit(n));
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class BoundedLockFreeVector<T> implements ConcurrentVector<T> {
+
+	/*
+	 * A version of LockFreeVector for vectors with a known maximum size.
+	 * 
+	 * It uses the same descriptor-based pushback and popback as LockFreeVector, but all of the 
+	 * slots are allocated up front in a single array. That means there's no two-level vals array, 
+	 * no getBucket()/getIdxWithinBucket() math, and no allocateBucket() races, so readAt() is a 
+	 * single array read and the memory usage never changes.
+	 * 
+	 * When the vector is full, tryPushBack() returns false and pushBack() throws an 
+	 * IllegalStateException (since ConcurrentVector's pushBack() can't return anything).
+	 */
+
+	AtomicReference<Descriptor<T>> desc;
+	AtomicReferenceArray<T> vals;
+
+	public BoundedLockFreeVector(int capacity) {
+		desc = new AtomicReference<Descriptor<T>>(new Descriptor<T>(0, null));
+		vals = new AtomicReferenceArray<T>(capacity);
+	}
+
+	@Override
+	public void pushBack(T newElement) {
+		if (!tryPushBack(newElement)) {
+			throw new IllegalStateException("Vector is full (capacity " + capacity() + ")");
+		}
+	}
+
+	boolean tryPushBack(T newElement) {
+		Descriptor<T> currDesc, newDesc;
+		// Run until we successfully change the descriptor.
+		do {
+			currDesc = desc.get();
+			
+			// Complete any pending operation of the old descriptor.
+			completeWrite(currDesc.writeOp);
+			
+			if (currDesc.size == vals.length()) return false; // There's no room left.
+			
+			// Create a new Descriptor and WriteDescriptor.
+			WriteDescriptor<T> writeOp = new WriteDescriptor<T>(vals.get(currDesc.size), newElement, 
+					currDesc.size);
+			newDesc = new Descriptor<T>(currDesc.size + 1, writeOp);
+		} while (!desc.compareAndSet(currDesc, newDesc));
+
+		// Complete the pending write (assuming nobody else has).
+		completeWrite(newDesc.writeOp);
+		return true;
+	}
+
+	@Override
+	public T popBack() {
+		Descriptor<T> currDesc, newDesc;
+		T elem;
+		// Run until we successfully change the descriptor.
+		do {
+			currDesc = desc.get();
+			
+			// Complete any pending operation of the old descriptor.
+			completeWrite(currDesc.writeOp);
+			
+			if (currDesc.size == 0) return null; // There's nothing to pop.
+			elem = vals.get(currDesc.size - 1);
+			
+			// Create a new Descriptor.
+			newDesc = new Descriptor<T>(currDesc.size - 1, null);
+		} while (!desc.compareAndSet(currDesc, newDesc));
+		
+		return elem;
+	}
+	
+	@Override
+	public T peek() {
+		Descriptor<T> currDesc = desc.get();
+		completeWrite(currDesc.writeOp); // Complete any pending push.
+		if (currDesc.size == 0) return null;
+		else return vals.get(currDesc.size - 1);
+	}
+
+	void writeAt(int idx, T newValue) {
+		vals.set(idx, newValue);
+	}
+
+	@Override
+	public T readAt(int idx) {
+		return vals.get(idx);
+	}
+
+	@Override
+	public int size() {
+		Descriptor<T> currDesc = desc.get();
+		int size = currDesc.size;
+		if (currDesc.writeOp != null && currDesc.writeOp.pending) { // A pending pushBack().
+			size--;
+		}
+		return size;
+	}
+
+	int capacity() {
+		return vals.length();
+	}
+
+	// Finish a pending write operation.
+	private void completeWrite(WriteDescriptor<T> writeOp) {
+		if (writeOp != null && writeOp.pending) {
+			// We don't need to loop until it succeeds, because a failure means some other thread
+			// completed it for us.
+			vals.compareAndSet(writeOp.idx, writeOp.oldValue, writeOp.newValue);
+			writeOp.pending = false;
+		}
+	}
+
+	private static class Descriptor<T> {
+		int size;
+		WriteDescriptor<T> writeOp;
+
+		Descriptor(int _size, WriteDescriptor<T> _writeOp) {
+			size = _size;
+			writeOp = _writeOp;
+		}
+	}
+
+	private static class WriteDescriptor<T> {
+		T oldValue, newValue;
+		int idx;
+		boolean pending;
+
+		WriteDescriptor(T _oldV, T _newV, int _idx) {
+			oldValue = _oldV;
+			newValue = _newV;
+			pending = true;
+			idx = _idx;
+		}
+	}
+}
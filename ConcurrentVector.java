@@ -0,0 +1,19 @@
+public interface ConcurrentVector<T> {
+
+	/*
+	 * The operations shared by every vector in this repo, so callers can switch between them 
+	 * without changing any code.
+	 * 
+	 * popBack(), peek() and readAt() return null when there's no element to return.
+	 */
+
+	void pushBack(T newElement);
+
+	T popBack();
+
+	T peek();
+
+	T readAt(int idx);
+
+	int size();
+}
@@ -1,7 +1,19 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
-public class LockFreeVector<T> {
+public class LockFreeVector<T> implements ConcurrentVector<T> {
 	
 	/*
 	 * Based on Dechev at al.'s lock-free vector paper.
@@ -24,6 +36,46 @@ public class LockFreeVector<T> {
 	 * 
 	 * Additionally, I added a peek() method.
 	 * 
+	 * Optionally, buckets can be allocated ahead of time by a background Executor (see the third 
+	 * constructor). Since each bucket is twice the size of the last one, allocating a large bucket 
+	 * inside pushBack() causes a latency spike whenever the size crosses a power of 2. Instead, the 
+	 * pushBack() that fills the current bucket past fillFraction submits the allocation of the 
+	 * next bucket to the executor. A push claims a bucket's allocation by CASing preallocated 
+	 * (the highest bucket submitted so far) forward, so each bucket is submitted at most once, 
+	 * even if popBack() and pushBack() cross the trigger index again before the executor runs. 
+	 * If the executor hasn't finished by the time the bucket is needed (or it rejects the task), 
+	 * pushBack() allocates the bucket itself, as usual.
+	 * 
+	 * subscribe() returns a Flow.Publisher that streams the vector's elements, starting from a 
+	 * given index, to each of its subscribers as they're pushed. An element is only delivered 
+	 * once its write has completed (ie. its index is below size()). Each subscription sends all 
+	 * of its signals (including onSubscribe()) from one task at a time on an Executor, delivers 
+	 * one bucket at a time, and only delivers as much as the subscriber has requested. A 
+	 * subscription that has caught up parks itself in the waiting queue, and the next pushBack() 
+	 * schedules it again. The only cost to pushBack() when nobody is waiting is checking whether 
+	 * that queue is empty. Some notes:
+	 * 		- Every index is delivered at most once, so if an element is popped and a new one is 
+	 * 		  pushed in its place, subscribers that already passed that index won't see the new one.
+	 * 		- null elements are skipped, since Flow doesn't allow them.
+	 * 		- onComplete() is only called once the vector has been frozen (see below) and the 
+	 * 		  subscription has delivered everything up to the frozen size. Until then, the vector 
+	 * 		  can always grow.
+	 * 
+	 * freeze() is for vectors that are loaded and then only read. It CASes in a frozen descriptor, 
+	 * after which pushBack(), popBack() and writeAt() throw an IllegalStateException, and returns 
+	 * an immutable List view of the vector. The view shares the buckets, but since nothing can 
+	 * change them anymore, it uses plain (non-volatile) reads and only checks the index against 
+	 * the size at the time of the freeze. Some notes:
+	 * 		- Every element write happens before its WriteDescriptor's (volatile) pending = false, 
+	 * 		  which happens before the next descriptor CAS, which happens before freeze() reads 
+	 * 		  desc. So the view sees every completed push, and since its fields are final, that 
+	 * 		  holds in any thread it's handed to.
+	 * 		- writeAt() doesn't go through the descriptor, so it only checks for a freeze before 
+	 * 		  writing. A writeAt() must not overlap freeze(), or its write may or may not be seen 
+	 * 		  by the view.
+	 * 		- freeze() wakes every parked subscription, so each one can finish delivering and then 
+	 * 		  call onComplete().
+	 * 
 	 * How the binary math works:
 	 * 		getBucket(): The index of the bucket to use is the index of the highest one bit 
 	 * 			(accounting for the FBS), ie. the largest power of 2 in the binary representation 
@@ -39,6 +91,12 @@ public class LockFreeVector<T> {
 	static final int FBS = 2; // First bucket size; can be any power of 2.
 	AtomicReference<Descriptor<T>> desc;
 	AtomicReferenceArray<AtomicReferenceArray<T>> vals;
+	// Used to allocate buckets in the background. preallocator is null if this is turned off.
+	Executor preallocator;
+	double fillFraction;
+	AtomicInteger preallocated = new AtomicInteger(0);
+	// Subscriptions that have caught up with the end of the vector and are waiting for a push.
+	ConcurrentLinkedQueue<TailSubscription> waiting = new ConcurrentLinkedQueue<>();
 
 	public LockFreeVector() {
 		desc = new AtomicReference<Descriptor<T>>(new Descriptor<T>(0, null));
@@ -52,6 +110,17 @@ public class LockFreeVector<T> {
 		desc.get().size = size;
 	}
 
+	// fillFraction is how full (from 0 up to, but not including, 1) a bucket must be before the 
+	// next one is allocated.
+	public LockFreeVector(Executor preallocator, double fillFraction) {
+		this();
+		if (!(fillFraction >= 0 && fillFraction < 1)) {
+			throw new IllegalArgumentException("fillFraction must be in [0, 1): " + fillFraction);
+		}
+		this.preallocator = preallocator;
+		this.fillFraction = fillFraction;
+	}
+
 	void reserve(int newSize) {
 		// The -1 is used because getBucket() finds the bucket for a given index. Since we're 
 		// checking sizes, we only need to allocate size-1 indexes.
@@ -67,7 +136,8 @@ public class LockFreeVector<T> {
 		}
 	}
 
-	void pushBack(T newElement) {
+	@Override
+	public void pushBack(T newElement) {
 		Descriptor<T> currDesc, newDesc;
 		// Run until we successfully change the descriptor.
 		do {
@@ -76,6 +146,8 @@ public class LockFreeVector<T> {
 			// Complete any pending operation of the old descriptor.
 			completeWrite(currDesc.writeOp);
 			
+			if (currDesc.frozen) throw new IllegalStateException("Vector is frozen");
+			
 			// Determine which bucket this element will go in.
 			int bucketIdx = highestBit(currDesc.size + FBS) - highestBit(FBS);
 			// If the appropriate bucket doesn't exist, create it.
@@ -89,9 +161,13 @@ public class LockFreeVector<T> {
 
 		// Complete the pending write (assuming nobody else has).
 		completeWrite(newDesc.writeOp);
+
+		if (preallocator != null) preallocate(currDesc.size);
+		if (!waiting.isEmpty()) wakeSubscribers();
 	}
 
-	T popBack() {
+	@Override
+	public T popBack() {
 		Descriptor<T> currDesc, newDesc;
 		T elem;
 		// Run until we successfully change the descriptor.
@@ -101,6 +177,7 @@ public class LockFreeVector<T> {
 			// Complete any pending operation of the old descriptor.
 			completeWrite(currDesc.writeOp);
 			
+			if (currDesc.frozen) throw new IllegalStateException("Vector is frozen");
 			if (currDesc.size == 0) return null; // There's nothing to pop.
 			elem = readAt(currDesc.size - 1);
 			
@@ -111,22 +188,27 @@ public class LockFreeVector<T> {
 		return elem;
 	}
 	
-	T peek() {
+	@Override
+	public T peek() {
 		Descriptor<T> currDesc = desc.get();
 		completeWrite(currDesc.writeOp); // Complete any pending push.
 		if (currDesc.size == 0) return null;
 		else return readAt(currDesc.size - 1);
 	}
 
+	// Must not overlap freeze() (see above).
 	void writeAt(int idx, T newValue) {
+		if (desc.get().frozen) throw new IllegalStateException("Vector is frozen");
 		vals.get(getBucket(idx)).set(getIdxWithinBucket(idx), newValue);
 	}
 
-	T readAt(int idx) {
+	@Override
+	public T readAt(int idx) {
 		return vals.get(getBucket(idx)).get(getIdxWithinBucket(idx));
 	}
 
-	int size() {
+	@Override
+	public int size() {
 		Descriptor<T> currDesc = desc.get();
 		int size = currDesc.size;
 		if (currDesc.writeOp != null && currDesc.writeOp.pending) { // A pending pushBack().
@@ -135,6 +217,52 @@ public class LockFreeVector<T> {
 		return size;
 	}
 
+	// Stops any further changes to the vector, and returns a read-only view of it.
+	List<T> freeze() {
+		Descriptor<T> currDesc, newDesc;
+		// Run until we successfully change the descriptor (or somebody else froze the vector).
+		do {
+			currDesc = desc.get();
+			
+			// Complete any pending operation of the old descriptor.
+			completeWrite(currDesc.writeOp);
+			
+			if (currDesc.frozen) return new FrozenList(currDesc.size);
+			
+			// Create a new Descriptor.
+			newDesc = new Descriptor<T>(currDesc.size, null);
+			newDesc.frozen = true;
+		} while (!desc.compareAndSet(currDesc, newDesc));
+		
+		// Parked subscriptions won't be woken by a push anymore, so let them complete.
+		if (!waiting.isEmpty()) wakeSubscribers();
+		return new FrozenList(newDesc.size);
+	}
+
+	Flow.Publisher<T> subscribe(int fromIndex) {
+		return subscribe(fromIndex, ForkJoinPool.commonPool());
+	}
+
+	// Subscriptions created by the returned Publisher deliver elements on executor.
+	Flow.Publisher<T> subscribe(int fromIndex, Executor executor) {
+		return subscriber -> {
+			TailSubscription subscription = new TailSubscription(subscriber, Math.max(fromIndex, 0), 
+					executor);
+			// onSubscribe() is sent from run(), so it can't overlap an onNext() caused by a 
+			// request() made inside onSubscribe().
+			subscription.schedule();
+		};
+	}
+
+	// Schedule every subscription that was waiting for a push.
+	private void wakeSubscribers() {
+		TailSubscription subscription;
+		while ((subscription = waiting.poll()) != null) {
+			subscription.parked.set(false);
+			if (!subscription.cancelled) subscription.schedule();
+		}
+	}
+
 	// Finish a pending write operation.
 	private void completeWrite(WriteDescriptor<T> writeOp) {
 		if (writeOp != null && writeOp.pending) {
@@ -146,6 +274,26 @@ public class LockFreeVector<T> {
 		}
 	}
 
+	// If idx is the index that fills its bucket past fillFraction, allocate the next bucket in the 
+	// background.
+	private void preallocate(int idx) {
+		int bucketIdx = getBucket(idx);
+		if (bucketIdx + 1 >= vals.length()) return; // There is no next bucket.
+		int bucketSize = 1 << (bucketIdx + highestBit(FBS));
+		if (getIdxWithinBucket(idx) != (int) (bucketSize * fillFraction)) return;
+		if (vals.get(bucketIdx + 1) != null) return; // It's already allocated.
+		
+		// Claim the next bucket, so no other push submits it again.
+		int submitted = preallocated.get();
+		if (submitted > bucketIdx || !preallocated.compareAndSet(submitted, bucketIdx + 1)) return;
+		try {
+			preallocator.execute(() -> allocateBucket(bucketIdx + 1));
+		} catch (RejectedExecutionException e) {
+			// Our push already succeeded, so don't fail it. pushBack() will allocate the bucket 
+			// when it's needed.
+		}
+	}
+
 	// Create a new bucket.
 	private void allocateBucket(int bucketIdx) {
 		int bucketSize = 1 << (bucketIdx + highestBit(FBS));
@@ -174,20 +322,169 @@ public class LockFreeVector<T> {
 		return Integer.numberOfTrailingZeros(Integer.highestOneBit(n));
 	}
 
+	private class TailSubscription implements Flow.Subscription, Runnable {
+		Flow.Subscriber<? super T> subscriber;
+		Executor executor;
+		int next; // The next index to deliver. Only used by run().
+		boolean subscribed; // Whether onSubscribe() has been sent. Only used by run().
+		AtomicLong demand;
+		// The number of times the subscription has been scheduled since run() last finished. This 
+		// makes sure only one thread runs run() at a time.
+		AtomicInteger wip;
+		AtomicBoolean parked; // Whether the subscription is in the waiting queue.
+		volatile boolean cancelled;
+		// An error to signal from drain(), so the subscriber never gets signals from two threads 
+		// at once.
+		volatile Throwable error;
+
+		TailSubscription(Flow.Subscriber<? super T> _subscriber, int _next, Executor _executor) {
+			subscriber = _subscriber;
+			next = _next;
+			subscribed = false;
+			executor = _executor;
+			demand = new AtomicLong(0);
+			wip = new AtomicInteger(0);
+			parked = new AtomicBoolean(false);
+			cancelled = false;
+			error = null;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("request() must be positive");
+				schedule();
+				return;
+			}
+			// Add n to demand, without overflowing (Long.MAX_VALUE means unbounded).
+			demand.getAndUpdate(d -> (d + n < 0) ? Long.MAX_VALUE : d + n);
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			// If we're parked, leave the waiting queue now instead of at the next push. (If the CAS 
+			// fails, wakeSubscribers() already took us out.)
+			if (parked.compareAndSet(true, false)) waiting.remove(this);
+		}
+
+		void schedule() {
+			if (wip.getAndIncrement() == 0) executor.execute(this);
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				if (!subscribed) {
+					subscribed = true;
+					try {
+						subscriber.onSubscribe(this);
+					} catch (RuntimeException e) {
+						cancelled = true; // The subscriber threw, so we stop delivering to it.
+					}
+				}
+				drain();
+
+				// We've caught up, so wait for the next push. We check size() again afterward, in 
+				// case a push (or a freeze()) happened before we were added to the queue.
+				if (!cancelled && demand.get() > 0 && parked.compareAndSet(false, true)) {
+					waiting.add(this);
+					if (next < size() || desc.get().frozen) wakeSubscribers();
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		// Deliver elements until we run out of demand or catch up with the end of the vector.
+		private void drain() {
+			while (!cancelled) {
+				if (error != null) {
+					cancelled = true;
+					subscriber.onError(error);
+					return;
+				}
+				
+				// Read frozen before size(), so if the vector is frozen, size is the frozen size.
+				boolean frozen = desc.get().frozen;
+				long requested = demand.get();
+				int size = size();
+				if (next >= size) {
+					if (frozen) {
+						// Nothing else can be pushed, so we're done.
+						cancelled = true;
+						subscriber.onComplete();
+					}
+					return;
+				}
+				if (requested == 0) return;
+
+				// Deliver up to the end of next's bucket.
+				AtomicReferenceArray<T> bucket = vals.get(getBucket(next));
+				int idxWithinBucket = getIdxWithinBucket(next);
+				int end = Math.min(size, next + bucket.length() - idxWithinBucket);
+				long delivered = 0;
+				for (; next < end && delivered < requested && !cancelled; next++, idxWithinBucket++) {
+					T elem = bucket.get(idxWithinBucket);
+					if (elem == null) continue;
+					try {
+						subscriber.onNext(elem);
+					} catch (RuntimeException e) {
+						cancelled = true; // The subscriber threw, so we stop delivering to it.
+						return;
+					}
+					delivered++;
+				}
+				if (requested != Long.MAX_VALUE) demand.addAndGet(-delivered);
+			}
+		}
+	}
+
+	private class FrozenList extends AbstractList<T> implements RandomAccess {
+		// A copy of the in-use part of vals (the buckets themselves are shared, not copied).
+		final AtomicReferenceArray<T>[] buckets;
+		final int size;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		FrozenList(int _size) {
+			size = _size;
+			buckets = (AtomicReferenceArray<T>[]) new AtomicReferenceArray[vals.length()];
+			for (int i = 0; i <= getBucket(size - 1); i++) {
+				buckets[i] = vals.get(i);
+			}
+		}
+
+		@Override
+		public T get(int idx) {
+			Objects.checkIndex(idx, size);
+			return buckets[getBucket(idx)].getPlain(getIdxWithinBucket(idx));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
 	private static class Descriptor<T> {
 		int size;
 		WriteDescriptor<T> writeOp;
+		boolean frozen; // Set by freeze(). No more operations can change a frozen vector.
 
 		Descriptor(int _size, WriteDescriptor<T> _writeOp) {
 			size = _size;
 			writeOp = _writeOp;
+			frozen = false;
 		}
 	}
 
 	private static class WriteDescriptor<T> {
 		T oldValue, newValue;
 		int idx;
-		boolean pending;
+		// volatile, so a subscription that parks and then checks size() can't miss a push that 
+		// completes at the same time (and so completed writes are visible to other threads).
+		volatile boolean pending;
 
 		WriteDescriptor(T _oldV, T _newV, int _idx) {
 			oldValue = _oldV;
@@ -3,13 +3,21 @@ import java.util.concurrent.atomic.AtomicMarkableReference;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
-public class LockFreeVectorWithCombining<T> {
+public class LockFreeVectorWithCombining<T> implements ConcurrentVector<T> {
 
 	/*
 	 * Based on Walulya at al.'s lock-free vector paper.
 	 * 
 	 * A Combine operation is considered "ready" once the descriptor's batch value is set (this 
-	 * done by AddToBatch or popback).
+	 * done by AddToBatch or by closeAndCombine()).
+	 * 
+	 * Pops are combined too. The paper has popback close the queue and run the Combine itself, 
+	 * which flushes the batch on every pop. Instead, a popback that finds an open queue (or that 
+	 * loses its CAS) adds itself to the queue, waits briefly for other operations to join, and 
+	 * then closes the queue. Combine replays the queue as a stack: a pop cancels against the 
+	 * latest unmatched push in the batch without touching the buckets, the remaining pops remove 
+	 * elements from the end of the vector, the remaining pushes are written after that, and the 
+	 * net size change is applied in a single descriptor update.
 	 * 
 	 * A note on the second constructor and reserve(): In std::vector, you can use reserve to 
 	 * allocate memory and then write to that memory. However, due to the way the bounds checking 
@@ -27,15 +35,31 @@ public class LockFreeVectorWithCombining<T> {
 	 * 		  it.
 	 * 
 	 * Additionally, I added a peek() method.
+	 * 
+	 * sizeApprox(), peekNoHelp() and readAtRelaxed() are read-only versions of size(), peek() and 
+	 * readAt(). They never help with a pending write or a Combine and never CAS, so they're cheap 
+	 * enough for monitoring threads to poll without slowing down writers. The trade-off is that 
+	 * they may be slightly stale: pending pushes (including ones still in the combining queue) 
+	 * aren't visible yet, and an element that has just been popped may still be seen. (They 
+	 * return the element even if it's marked as deleted. While a Combine that removes elements is 
+	 * running, the descriptor still has the size from before the batch, and that element is the 
+	 * stale answer. Returning null would wrongly mean the vector is empty.)
+	 * 
+	 * shouldCombine() and recordCas() are hooks for AdaptiveLockFreeVector. Here, an operation 
+	 * that loses its descriptor CAS always goes to the combining queue.
 	 */
 
 	static final int FBS = 2; // First bucket size; can be any power of 2.
 	static final int QSize = 16; // Size of the bounded combining queue.
+	// How long a queued popback waits for other operations to join the batch before closing it.
+	static final int POP_SPINS = 64;
 	AtomicReference<Descriptor<AtomicMarkableReference<T>>> desc;
 	AtomicReferenceArray<AtomicReferenceArray<AtomicMarkableReference<T>>> vals;
 	AtomicReference<Queue<AtomicMarkableReference<T>>> batch;
 	ThreadLocal<ThreadInfo<T>> threadInfoGlobal;
 	WriteDescriptor<AtomicMarkableReference<T>> EMPTY_SLOT, FINISHED_SLOT;
+	// The result of a queued pop that found nothing to remove.
+	AtomicMarkableReference<T> EMPTY_POP;
 
 	public LockFreeVectorWithCombining() {
 		desc = new AtomicReference<Descriptor<AtomicMarkableReference<T>>>(new Descriptor<>(0, null, null));
@@ -53,6 +77,7 @@ public class LockFreeVectorWithCombining<T> {
 
 		EMPTY_SLOT = new WriteDescriptor<AtomicMarkableReference<T>>(null, null, -1);
 		FINISHED_SLOT = new WriteDescriptor<AtomicMarkableReference<T>>(null, null, -2);
+		EMPTY_POP = new AtomicMarkableReference<T>(null, false);
 	}
 	
 	public LockFreeVectorWithCombining(int size) {
@@ -76,12 +101,16 @@ public class LockFreeVectorWithCombining<T> {
 		}
 	}
 
-	void pushBack(T newElement) {
+	@Override
+	public void pushBack(T newElement) {
 		boolean willAddToBatch = false, helpWithCombine = false;
 		Descriptor<AtomicMarkableReference<T>> currDesc, newDesc;
 		ThreadInfo<T> threadInfo = threadInfoGlobal.get();
 		AtomicMarkableReference<T> newRef = new AtomicMarkableReference<>(newElement, false);
 		while (true) {
+			// If combining is turned off, flush any queue that was left over from when it was on.
+			if (!shouldCombine() && batch.get() != null) startCombine();
+
 			currDesc = desc.get();
 
 			// Complete any pending operation.
@@ -89,7 +118,7 @@ public class LockFreeVectorWithCombining<T> {
 
 			// If there's a current or ready Combine operation, this thread will help complete it.
 			if (currDesc.batch != null) {
-				combine(threadInfo, currDesc, true);
+				combine(threadInfo, currDesc);
 			}
 
 			// Determine which bucket this element will go in.
@@ -105,7 +134,7 @@ public class LockFreeVectorWithCombining<T> {
 			// If our CAS failed (in a previous loop iteration) or this thread has already added 
 			// items to the queue, then we'll try to add this operation to the queue. (Once we add 
 			// one push to the queue, we'll keep doing so until that queue closes.)
-			if (willAddToBatch || (threadInfo.q != null && threadInfo.q == batch.get())) {
+			if (willAddToBatch || (shouldCombine() && threadInfo.q != null && threadInfo.q == batch.get())) {
 				if (addToBatch(threadInfo, newDesc, writeOp)) {
 					return; // The operation was added to the queue, so we're done here.
 				}
@@ -121,37 +150,44 @@ public class LockFreeVectorWithCombining<T> {
 			}
 
 			// Try the normal compare and set.
-			if (desc.compareAndSet(currDesc, newDesc)) {
+			boolean succeeded = desc.compareAndSet(currDesc, newDesc);
+			recordCas(threadInfo, succeeded);
+			if (succeeded) {
 				threadInfo.size = newDesc.size;
 				
 				if (newDesc.batch != null) {
 					// AddToBatch set the descriptor's queue, which only happens when we're ready 
 					// to combine.
-					combine(threadInfo, newDesc, true);
-					
-					if (helpWithCombine) {
-						// We failed the AddToBatch above, so now that we're done helping with 
-						// Combine, we're going to do another loop (because we haven't added 
-						// writeOp to the vector/combining queue yet).
-						helpWithCombine = false;
-						continue;
-					}
+					combine(threadInfo, newDesc);
+				}
+				if (helpWithCombine) {
+					// We failed the AddToBatch above, so now that we're done helping with 
+					// Combine, we're going to do another loop (because we haven't added 
+					// writeOp to the vector/combining queue yet).
+					helpWithCombine = false;
+					continue;
 				}
 				break; // We're done.
 			} else {
-				// The thread adds the operation to the combining queue (in the next loop iteration).
-				willAddToBatch = true;
+				// The thread adds the operation to the combining queue (in the next loop iteration), 
+				// unless combining is turned off, in which case it just tries again.
+				willAddToBatch = shouldCombine();
 			}
 		}
 
 		completeWrite(newDesc.writeOp);
 	}
 
-	T popBack() {
+	@Override
+	public T popBack() {
+		boolean willAddToBatch = false;
 		Descriptor<AtomicMarkableReference<T>> currDesc, newDesc;
 		ThreadInfo<T> threadInfo = threadInfoGlobal.get();
 		T elem = null;
 		while (true) {
+			// If combining is turned off, flush any queue that was left over from when it was on.
+			if (!shouldCombine() && batch.get() != null) startCombine();
+
 			currDesc = desc.get();
 
 			// Complete any pending operation
@@ -159,45 +195,70 @@ public class LockFreeVectorWithCombining<T> {
 
 			// If there's a current or ready Combine operation, this thread will help complete it.
 			if (currDesc.batch != null) {
-				combine(threadInfo, currDesc, true);
+				combine(threadInfo, currDesc);
 			}
-			
-			if (currDesc.size == 0 && batch.get() == null) return null; // There's nothing to pop.
 
-			if (currDesc.size == 0) {
-				// The vector is empty, but there's stuff in the combining queue, so we keep going.
-				elem = null;
-			} else {
-				// Use readRefAt (which has no bounds checking) to get the reference, then extract 
-				// the value (if it exists).
-				AtomicMarkableReference<T> ref = readRefAt(currDesc.size - 1);
-				if (ref != null) elem = ref.getReference();
+			// If our CAS failed (in a previous loop iteration) or there's an open combining queue, 
+			// then we'll add this pop to the queue instead of flushing it (unless combining is 
+			// turned off, in which case we just try the normal CAS).
+			if (willAddToBatch || (shouldCombine() && batch.get() != null)) {
+				WriteDescriptor<AtomicMarkableReference<T>> popOp = new WriteDescriptor<>(null, null, 
+						currDesc.size);
+				popOp.opType = OpType.POP;
+				popOp.result = new AtomicReference<>(null);
+				newDesc = new Descriptor<>(currDesc.size, null, null);
+				if (addToBatch(threadInfo, newDesc, popOp)) {
+					return awaitPop(threadInfo, popOp, threadInfo.q);
+				}
+
+				// We couldn't add it to the queue. If that's because the queue is closed, we'll 
+				// help with the Combine, then do another loop.
+				threadInfo.q = null;
+				if (newDesc.batch != null && desc.compareAndSet(currDesc, newDesc)) {
+					combine(threadInfo, newDesc);
+				}
+				continue;
 			}
 
+			if (currDesc.size == 0) return null; // There's nothing to pop.
+
+			// Use readRefAt (which has no bounds checking) to get the reference, then extract 
+			// the value (if it exists).
+			AtomicMarkableReference<T> ref = readRefAt(currDesc.size - 1);
+			elem = (ref != null) ? ref.getReference() : null;
+
 			// Create a new Descriptor.
 			newDesc = new Descriptor<>(currDesc.size - 1, null, OpType.POP);
-			// Prevents any weird errors that might happen if desc.size = 0.
-			if (currDesc.size == 0) newDesc.size = 0;
-			newDesc.offset = currDesc.size; // The size of the vector, without this pop.
-			newDesc.batch = batch.get(); // This signals that the Combine operation should start.
 
-			if (desc.compareAndSet(currDesc, newDesc)) {
+			boolean succeeded = desc.compareAndSet(currDesc, newDesc);
+			recordCas(threadInfo, succeeded);
+			if (succeeded) {
 				threadInfo.size = newDesc.size;
-				
-				if (newDesc.batch != null && newDesc.batch == batch.get()) {
-					// We need to execute any pending pushes before we can pop. Then we'll return 
-					// the last element added to the vector by Combine.
-					newDesc.batch.closed = true;
-					elem = combine(threadInfo, newDesc, false);
-				} else {
-					// Mark the node as logically deleted.
-					if (currDesc.size > 0) markNode(currDesc.size - 1);
-				}
-				break;
+				// Mark the node as logically deleted. (We mark the reference we popped, rather than 
+				// whatever is in the bucket now, since a push may have already reused the index.)
+				if (ref != null) ref.attemptMark(ref.getReference(), true);
+				return elem;
+			} else {
+				// The thread adds the operation to the combining queue (in the next loop iteration), 
+				// unless combining is turned off, in which case it just tries again.
+				willAddToBatch = shouldCombine();
 			}
 		}
+	}
 
-		return elem;
+	// Waits for a queued pop to be combined, and returns the element it removed.
+	private T awaitPop(ThreadInfo<T> threadInfo, WriteDescriptor<AtomicMarkableReference<T>> popOp, 
+			Queue<AtomicMarkableReference<T>> queue) {
+		// Give other threads a chance to add their operations to the batch before we close it. 
+		// This is bounded, so the pop still completes if nobody else closes the queue.
+		for (int i = 0; i < POP_SPINS && !queue.closed && popOp.result.get() == null; i++) {
+			Thread.onSpinWait();
+		}
+		queue.closed = true; // Harmless if the queue was already combined.
+		closeAndCombine(threadInfo, queue);
+
+		AtomicMarkableReference<T> ref = popOp.result.get();
+		return (ref == EMPTY_POP) ? null : ref.getReference();
 	}
 
 	boolean addToBatch(ThreadInfo<T> threadInfo, Descriptor<AtomicMarkableReference<T>> descr, 
@@ -238,83 +299,93 @@ public class LockFreeVectorWithCombining<T> {
 		return true;
 	}
 
-	T combine(ThreadInfo<T> threadInfo, Descriptor<AtomicMarkableReference<T>> descr, boolean 
-			dontNeedToReturn) {
-		Queue<AtomicMarkableReference<T>> queue = batch.get();
-		int headIndex, headCount;
-		
-		// Since offset isn't set, we know this Combine was triggered by a pushback. And since we 
-		// know pushback will set newDesc.size=currDesc.size when it triggers a Combine, that's what 
-		// we'll set offset to.
+	void combine(ThreadInfo<T> threadInfo, Descriptor<AtomicMarkableReference<T>> descr) {
+		Queue<AtomicMarkableReference<T>> queue = descr.batch;
+
+		// Since offset isn't set, we know this Combine was triggered by AddToBatch failing (or by 
+		// closeAndCombine()), both of which set newDesc.size=currDesc.size, so that's what we'll 
+		// set offset to.
 		if (descr.offset == -1) descr.offset = descr.size;
 
 		if (queue == null || !queue.closed) { // [[The paper has an AND here, which is a typo.]]
-			return null; // The queue is null/open, so the combining phase already finished.
+			return; // The queue is null/open, so there's nothing to combine.
 		}
 
-		// We dequeue operations and execute them.
-		while (true) {
-			Head head = queue.head.get();
-			headIndex = head.index;
-			headCount = head.count;
+		// Only the first descriptor that carries this queue applies it. Another one can be 
+		// installed (by closeAndCombine(), or by an AddToBatch that read the queue late) after the 
+		// batch was applied but before it was nullified. Its size already includes the batch, so 
+		// we just replace it with a copy that doesn't carry the queue.
+		queue.owner.compareAndSet(null, descr);
+		if (queue.owner.get() != descr) {
+			desc.compareAndSet(descr, new Descriptor<AtomicMarkableReference<T>>(descr.size, null, null));
+			return;
+		}
 
-			// Determine which bucket this element will go in.
-			// [[The paper uses a variable called cur_count here, but it's meant to be headCount.]]
-			int bucketIdx = getBucket(descr.offset + headCount);
-			// If the appropriate bucket doesn't exist, create it.
-			if (vals.get(bucketIdx) == null) allocateBucket(bucketIdx);
+		// Seal every empty slot, so any AddToBatch that hasn't finished yet will fail. After this, 
+		// the queue's contents can't change, so every helping thread sees the same batch.
+		for (int i = 0; i < QSize; i++) {
+			queue.items.compareAndSet(i, EMPTY_SLOT, FINISHED_SLOT);
+		}
 
-			AtomicMarkableReference<T> oldValue = readRefAt(descr.offset + headCount);
-			int ticket = headIndex;
-			if (ticket == queue.tail.get() || ticket == QSize) {
-				break; // We executed every operation in the queue.
+		// Replay the batch as a stack. A pop cancels against the latest unmatched push in the 
+		// batch. A pop with no push left to match will remove an element from the vector instead 
+		// (and all of those happen before any of the unmatched pushes).
+		int[] pushes = new int[QSize], pops = new int[QSize];
+		int numPushes = 0, numPops = 0;
+		for (int ticket = 0; ticket < QSize; ticket++) {
+			WriteDescriptor<AtomicMarkableReference<T>> op = queue.items.get(ticket);
+			if (op == FINISHED_SLOT) continue;
+			if (op.opType == OpType.PUSH) {
+				pushes[numPushes++] = ticket;
+			} else if (numPushes > 0) {
+				WriteDescriptor<AtomicMarkableReference<T>> push = queue.items.get(pushes[--numPushes]);
+				op.result.compareAndSet(null, push.newValue);
+				push.pending = false;
+			} else {
+				pops[numPops++] = ticket;
 			}
+		}
 
-			// If our CAS succeeds, then the corresponding AddToBatch operation has not finished 
-			// adding the item to the combining queue, so we just keep going.
-			if (queue.items.compareAndSet(ticket, EMPTY_SLOT, FINISHED_SLOT)) {
-				Head newHead = new Head(headIndex + 1, headCount);
-				// [[The paper updates tail here, but that's a typo.]]
-				queue.head.compareAndSet(head, newHead);
-				continue;
-			}
+		// Execute the remaining pops, starting from the end of the vector. Every pop's result must 
+		// be set before any push below is written, since the pushes reuse the same indexes. (If 
+		// another thread already set a result, our CAS fails, which is fine.)
+		int removed = Math.min(numPops, descr.offset);
+		for (int i = 0; i < numPops; i++) {
+			WriteDescriptor<AtomicMarkableReference<T>> op = queue.items.get(pops[i]);
+			AtomicMarkableReference<T> ref = (i < removed) ? readRefAt(descr.offset - 1 - i) : null;
+			op.result.compareAndSet(null, (ref != null) ? ref : EMPTY_POP);
+		}
+		for (int i = 0; i < removed; i++) {
+			// Mark the node as logically deleted. (We mark the reference itself, rather than 
+			// whatever is in the bucket now, since a push below may have replaced it.)
+			AtomicMarkableReference<T> ref = queue.items.get(pops[i]).result.get();
+			if (ref != EMPTY_POP) ref.attemptMark(ref.getReference(), true);
+		}
 
-			// One of the others threads helping with this Combine operation succeeded in the CAS
-			// (see above), so the AddToBatch failed and we keep going. 
-			if (queue.items.get(ticket) == FINISHED_SLOT) {
-				Head newHead = new Head(headIndex + 1, headCount); 
-				// [[The paper updates tail here, but that's a typo.]]
-				queue.head.compareAndSet(head, newHead);
-				continue;
-			}
+		// Execute the remaining pushes, in order.
+		int base = descr.offset - removed;
+		for (int i = 0; i < numPushes; i++) {
+			WriteDescriptor<AtomicMarkableReference<T>> writeOp = queue.items.get(pushes[i]);
+			int idx = base + i;
 
-			// The AddToBatch succeeded, so now we'll try to execute the WriteDescriptor's operation.
-			WriteDescriptor<AtomicMarkableReference<T>> writeOp = queue.items.get(ticket);
-			if (!writeOp.pending) { // A different thread did it for us, so just update head.
-				Head newHead = new Head(headIndex + 1, headCount+1);
-				// [[The paper updates tail here, but that's a typo.]]
-				queue.head.compareAndSet(head, newHead);
-				continue;
-			}
+			// Determine which bucket this element will go in.
+			int bucketIdx = getBucket(idx);
+			// If the appropriate bucket doesn't exist, create it.
+			if (vals.get(bucketIdx) == null) allocateBucket(bucketIdx);
 
-			// Complete writeOp's pending operation.
-			if (writeOp.pending && queue.head.get().index == headIndex && queue.head.get().count == headCount) {
-				int temp = descr.offset + headCount;
-				vals.get(getBucket(temp)).compareAndSet(getIdxWithinBucket(temp), oldValue, writeOp.newValue);
+			// Read the old value before checking pending: if we read a value written after this 
+			// Combine finished, pending must already be false, so we won't overwrite it.
+			AtomicMarkableReference<T> oldValue = readRefAt(idx);
+			if (writeOp.pending && oldValue != writeOp.newValue) {
+				vals.get(bucketIdx).compareAndSet(getIdxWithinBucket(idx), oldValue, writeOp.newValue);
 			}
-
-			// Update head and mark writeOp as complete.
-			Head newHead = new Head(headIndex + 1, headCount+1);
-			queue.head.compareAndSet(head, newHead);
 			writeOp.pending = false;
 		}
 
-		// Set the size of the vector after all of the pushes are complete.
-		int newSize = descr.offset + headCount;
-		if (descr.opType == OpType.POP) {
-			newSize--;
-		}
+		// Set the size of the vector after the whole batch is complete.
+		int newSize = base + numPushes;
 		threadInfo.size = newSize;
+		queue.done = true; // Every result is set, so queued pops can return.
 
 		// Update the descriptor.
 		Descriptor<AtomicMarkableReference<T>> newDesc = new Descriptor<AtomicMarkableReference<T>>
@@ -323,39 +394,51 @@ public class LockFreeVectorWithCombining<T> {
 		
 		// Nullify the combining queue, so we are ready for next time.
 		batch.compareAndSet(queue, null);
+	}
 
-		// This thread started the Combine and is executing a popback, so we need to return the last 
-		// value we pushed. (If this Combine was started by a pushback or a different thread's 
-		// popback, we don't return anything.)
-		if (!dontNeedToReturn) {
-			int index = descr.offset + headCount;
-			T elem = readAt(index);
-			markNode(index); // Mark the node as logically deleted.
-			return elem;
+	// Installs a descriptor for a closed queue and helps combine it, until the queue is done.
+	private void closeAndCombine(ThreadInfo<T> threadInfo, Queue<AtomicMarkableReference<T>> queue) {
+		while (!queue.done && batch.get() == queue) {
+			Descriptor<AtomicMarkableReference<T>> currDesc = desc.get();
+			completeWrite(currDesc.writeOp); // Complete any pending operation.
+			if (currDesc.batch != null) {
+				combine(threadInfo, currDesc);
+				continue;
+			}
+			Descriptor<AtomicMarkableReference<T>> newDesc = new Descriptor<>(currDesc.size, null, null);
+			newDesc.batch = queue;
+			if (desc.compareAndSet(currDesc, newDesc)) {
+				combine(threadInfo, newDesc);
+			}
 		}
-
-		return null;
 	}
 	
 	// Closes the combining queue and starts the combining phase.
 	void startCombine() {
-		Descriptor<AtomicMarkableReference<T>> descr = desc.get();
-		completeWrite(descr.writeOp); // Just in case (I'm not sure if this is needed).
 		Queue<AtomicMarkableReference<T>> queue = batch.get();
 		if (queue == null) return; // The queue is non-existent, so there's nothing to combine.
 		queue.closed = true;
-		descr.batch = queue;
-		
-		combine(threadInfoGlobal.get(), descr, true);
+		closeAndCombine(threadInfoGlobal.get(), queue);
 	}
 
-	T peek() {
+	// Whether an operation that loses its descriptor CAS should go to the combining queue.
+	boolean shouldCombine() {
+		return true;
+	}
+
+	// Called after every normal descriptor CAS in pushback and popback.
+	void recordCas(ThreadInfo<T> threadInfo, boolean succeeded) {
+		// Nothing to do here; AdaptiveLockFreeVector uses this to measure contention.
+	}
+
+	@Override
+	public T peek() {
 		Descriptor<AtomicMarkableReference<T>> currDesc = desc.get();
 
 		// If there's a current or ready Combine operation, this thread will help complete it.
 		if (currDesc.batch != null) {
 			ThreadInfo<T> threadInfo = threadInfoGlobal.get();
-			combine(threadInfo, currDesc, true);
+			combine(threadInfo, currDesc);
 		}
 
 		completeWrite(currDesc.writeOp); // Complete any pending operation.
@@ -364,6 +447,14 @@ public class LockFreeVectorWithCombining<T> {
 		else return readAt(currDesc.size - 1);
 	}
 	
+	// Like peek(), but never helps. Returns the last element whose push has been completed.
+	T peekNoHelp() {
+		int size = sizeApprox();
+		if (size == 0) return null;
+		AtomicMarkableReference<T> ref = readRefAt(size - 1);
+		return (ref != null) ? ref.getReference() : null;
+	}
+	
 	private boolean inBounds(int idx) {
 		ThreadInfo<T> threadInfo = threadInfoGlobal.get();
 		if (idx >= threadInfo.size) {
@@ -395,25 +486,34 @@ public class LockFreeVectorWithCombining<T> {
 		return false;
 	}
 
-	T readAt(int idx) {
+	@Override
+	public T readAt(int idx) {
 		if (!inBounds(idx)) return null;
 		AtomicMarkableReference<T> ref = readRefAt(idx);
 		if (ref != null) return ref.getReference();
 		else return null;
 	}
+	// Like readAt(), but checks the bounds against sizeApprox() (a single read of the descriptor, 
+	// instead of the thread's cached size), and never helps.
+	T readAtRelaxed(int idx) {
+		if (idx < 0 || idx >= sizeApprox()) return null;
+		AtomicMarkableReference<T> ref = readRefAt(idx);
+		return (ref != null) ? ref.getReference() : null;
+	}
 	private AtomicMarkableReference<T> readRefAt(int idx) {
 		// Does not perform bounds checking.
 		return vals.get(getBucket(idx)).get(getIdxWithinBucket(idx));
 	}
 
-	int size() {
+	@Override
+	public int size() {
 		Descriptor<AtomicMarkableReference<T>> currDesc = desc.get();
 		int size = currDesc.size;
 
 		// If there's a current or ready Combine operation, this thread will help complete it.
 		if (currDesc.batch != null) {
 			ThreadInfo<T> threadInfo = threadInfoGlobal.get();
-			combine(threadInfo, currDesc, true);
+			combine(threadInfo, currDesc);
 		}
 
 		// Take into account any pending WriteDescriptors.
@@ -424,9 +524,15 @@ public class LockFreeVectorWithCombining<T> {
 		return size;
 	}
 
-	private void markNode(int idx) {
-		if (vals.get(getBucket(idx)).get(getIdxWithinBucket(idx)) == null) return;
-		vals.get(getBucket(idx)).get(getIdxWithinBucket(idx)).attemptMark(readAt(idx), true);
+	// Like size(), but never helps. If a Combine is ready, this is the size before the Combine.
+	int sizeApprox() {
+		Descriptor<AtomicMarkableReference<T>> currDesc = desc.get();
+		int size = currDesc.size;
+		// Take into account any pending WriteDescriptor.
+		if (currDesc.writeOp != null && currDesc.writeOp.pending && currDesc.opType == OpType.PUSH) {
+			size--;
+		}
+		return size;
 	}
 
 	// Finish a pending write operation.
@@ -489,27 +595,36 @@ public class LockFreeVectorWithCombining<T> {
 	private static class WriteDescriptor<E> {
 		E oldValue, newValue;
 		int idx;
-		boolean pending;
+		volatile boolean pending;
+		// Queued pops use these. result holds the element the pop removed, once it's combined.
+		OpType opType;
+		AtomicReference<E> result;
 
 		WriteDescriptor(E _oldV, E _newV, int _idx) {
 			oldValue = _oldV;
 			newValue = _newV;
 			pending = true;
 			idx = _idx;
+			opType = OpType.PUSH;
+			result = null;
 		}
 	}
 
 	private static class Queue<E> {
-		boolean closed;
+		volatile boolean closed;
 		AtomicReferenceArray<WriteDescriptor<E>> items;
 		AtomicInteger tail;
-		AtomicReference<Head> head;
+		// owner is the descriptor whose Combine applies this queue. done is set once every 
+		// operation in the queue has been executed.
+		AtomicReference<Descriptor<E>> owner;
+		volatile boolean done;
 
 		Queue() {
 			items = new AtomicReferenceArray<>(QSize);
 			closed = false;
 			tail = new AtomicInteger(1);
-			head = new AtomicReference<Head>(new Head(0, 0));
+			owner = new AtomicReference<>(null);
+			done = false;
 		}
 		
 		// fill(EMPTY_SLOT) must be called immediately after initializing a Queue. (It's a separate 
@@ -522,27 +637,22 @@ public class LockFreeVectorWithCombining<T> {
 		}
 	}
 
-	private static class Head {
-		// index is the index of the head point and count indicates the number of successfully 
-		// combined operations.
-		int index, count;
-		Head(int _index, int _count) {
-			index = _index;
-			count = _count;
-		}
-	}
-
 	private static enum OpType {
 		PUSH, POP;
 	}
 
-	private static class ThreadInfo<T> {
+	static class ThreadInfo<T> {
 		Queue<AtomicMarkableReference<T>> q;
 		int size;
+		// The number of descriptor CASes this thread has attempted and failed since 
+		// AdaptiveLockFreeVector last checked.
+		int casAttempts, casFailures;
 
 		public ThreadInfo() {
 			q = new Queue<AtomicMarkableReference<T>>();
 			size = 0;
+			casAttempts = 0;
+			casFailures = 0;
 		}
 	}
 }
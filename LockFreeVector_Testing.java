@@ -1,7 +1,15 @@
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LockFreeVector_Testing {
 	
@@ -12,7 +20,25 @@ public class LockFreeVector_Testing {
 	static final int NUM_THREADS = 8, NUM_OPS = 100, OPS_PER_THREAD = NUM_OPS / NUM_THREADS;
 	// Push: [0, PUSH_THRESHOLD), pop: [PUSH_THRESHOLD, 1)
 	static final double PUSH_THRESHOLD = 0.5;
+	// Used by the "check" mode, which runs many short rounds.
+	static final int CHECK_ROUNDS = 200, CHECK_OPS_PER_THREAD = 100;
 	public static void main(String[] args) throws InterruptedException {
+		// Run with "check" to check the combining vector's contents instead of printing them.
+		if (args.length > 0 && args[0].equals("check")) {
+			checkCombining();
+			return;
+		}
+		// Run with "append" to check AppendOnlyLockFreeVector's committed size.
+		if (args.length > 0 && args[0].equals("append")) {
+			checkAppendOnly();
+			return;
+		}
+		// Run with "subscribe" to check that a subscriber sees every push, in order.
+		if (args.length > 0 && args[0].equals("subscribe")) {
+			checkSubscribe();
+			return;
+		}
+		
 		LockFreeVectorWithCombining<Integer> vector = new LockFreeVectorWithCombining<>();
 		long startTime = System.currentTimeMillis(), endTime = 0;
 		ConcurrentLinkedQueue<Integer> pushQueue = new ConcurrentLinkedQueue<Integer>(), 
@@ -62,6 +88,195 @@ public class LockFreeVector_Testing {
 		}
 	}
 	
+	// Pushes unique values and pops them (from several threads), flushes the combining queue, and 
+	// then drains the vector. Every index below size() must be readable (ie. not marked as deleted), 
+	// and every pushed value must be either popped or drained exactly once.
+	// This is done for LockFreeVectorWithCombining and AdaptiveLockFreeVector. The adaptive vector is 
+	// also run with a thread that keeps flipping its mode, so both modes (and flushing a leftover 
+	// combining queue in plain mode) get exercised.
+	static void checkCombining() throws InterruptedException {
+		int[] failures = new int[3];
+		for (int round = 0; round < CHECK_ROUNDS; round++) {
+			String error = checkCombiningRound(new LockFreeVectorWithCombining<>());
+			if (error != null) {
+				failures[0]++;
+				System.out.println("Combining round " + round + " FAILED: " + error);
+			}
+			
+			error = checkCombiningRound(new AdaptiveLockFreeVector<>());
+			if (error != null) {
+				failures[1]++;
+				System.out.println("Adaptive round " + round + " FAILED: " + error);
+			}
+			
+			AdaptiveLockFreeVector<Integer> vector = new AdaptiveLockFreeVector<>();
+			AtomicBoolean running = new AtomicBoolean(true);
+			Thread toggler = new Thread(() -> {
+				while (running.get()) {
+					vector.combining = !vector.combining;
+					Thread.onSpinWait();
+				}
+			});
+			toggler.start();
+			error = checkCombiningRound(vector);
+			running.set(false);
+			toggler.join();
+			if (error != null) {
+				failures[2]++;
+				System.out.println("Adaptive (toggled) round " + round + " FAILED: " + error);
+			}
+		}
+		System.out.println("Combining: " + (CHECK_ROUNDS - failures[0]) + "/" + CHECK_ROUNDS + 
+				", adaptive: " + (CHECK_ROUNDS - failures[1]) + "/" + CHECK_ROUNDS + 
+				", adaptive (toggled): " + (CHECK_ROUNDS - failures[2]) + "/" + CHECK_ROUNDS + 
+				" rounds passed");
+		System.out.println(failures[0] + failures[1] + failures[2] == 0 ? "OK" : "FAILED");
+	}
+	
+	// Returns null if the round passed, or a description of what went wrong.
+	static String checkCombiningRound(LockFreeVectorWithCombining<Integer> vector) 
+			throws InterruptedException {
+		ConcurrentLinkedQueue<Integer> pushQueue = new ConcurrentLinkedQueue<>(), 
+				popQueue = new ConcurrentLinkedQueue<>();
+		AtomicInteger nextValue = new AtomicInteger(0);
+
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int j = 0; j < NUM_THREADS; j++) {
+			threads[j] = new Thread(() -> {
+				for (int i = 0; i < CHECK_OPS_PER_THREAD; i++) {
+					if (Math.random() < PUSH_THRESHOLD) {
+						int n = nextValue.getAndIncrement();
+						vector.pushBack(n);
+						pushQueue.add(n);
+					} else {
+						Integer n = vector.popBack();
+						if (n != null) popQueue.add(n);
+					}
+				}
+			});
+			threads[j].start();
+		}
+		for (int j = 0; j < NUM_THREADS; j++) threads[j].join();
+
+		vector.startCombine(); // Clear out the combining queue
+		int size = vector.size();
+		for (int i = 0; i < size; i++) {
+			if (vector.readAt(i) == null) return "index " + i + " < size " + size + " isn't readable";
+		}
+		List<Integer> drained = new ArrayList<>();
+		Integer n;
+		while ((n = vector.popBack()) != null) drained.add(n);
+
+		List<Integer> pushed = new ArrayList<>(pushQueue), popped = new ArrayList<>(popQueue);
+		popped.addAll(drained);
+		Collections.sort(pushed);
+		Collections.sort(popped);
+		if (!pushed.equals(popped)) {
+			return "pushed (" + pushed.size() + ") != popped (" + popQueue.size() + ") + drained (" + 
+					drained.size() + ")";
+		}
+		if (size != drained.size()) return "size " + size + " != drained " + drained.size();
+		return null;
+	}
+	
+	// Several threads push while a subscriber requests a few elements at a time. The subscriber must 
+	// receive exactly the vector's contents, in index order.
+	static void checkSubscribe() throws InterruptedException {
+		LockFreeVector<Integer> vector = new LockFreeVector<>();
+		int total = NUM_THREADS * OPS_PER_THREAD * 1000, batchSize = 7;
+		List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(1);
+
+		vector.subscribe(0).subscribe(new Flow.Subscriber<Integer>() {
+			Flow.Subscription subscription;
+			
+			@Override public void onSubscribe(Flow.Subscription s) {
+				subscription = s;
+				subscription.request(batchSize);
+			}
+			@Override public void onNext(Integer n) {
+				received.add(n);
+				if (received.size() == total) done.countDown();
+				else if (received.size() % batchSize == 0) subscription.request(batchSize);
+			}
+			@Override public void onError(Throwable t) {
+				System.out.println("FAILED: onError " + t);
+				done.countDown();
+			}
+			@Override public void onComplete() {}
+		});
+
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int j = 0; j < NUM_THREADS; j++) {
+			final int jCopy = j;
+			threads[j] = new Thread(() -> {
+				for (int i = 0; i < total / NUM_THREADS; i++) vector.pushBack(jCopy * total + i);
+			});
+			threads[j].start();
+		}
+		for (int j = 0; j < NUM_THREADS; j++) threads[j].join();
+
+		if (!done.await(10, TimeUnit.SECONDS)) System.out.println("FAILED: timed out");
+		System.out.println("Pushed: " + vector.size() + ", received: " + received.size());
+		for (int i = 0; i < received.size(); i++) {
+			if (!received.get(i).equals(vector.readAt(i))) {
+				System.out.println("FAILED: index " + i + " out of order");
+				return;
+			}
+		}
+		if (received.size() == vector.size()) System.out.println("OK");
+	}
+	
+	// Several threads push unique values while another thread watches size(). size() must never 
+	// shrink, every index below it must already be written, and the final contents must be exactly 
+	// the pushed values.
+	static void checkAppendOnly() throws InterruptedException {
+		AppendOnlyLockFreeVector<Integer> vector = new AppendOnlyLockFreeVector<>();
+		int total = NUM_THREADS * OPS_PER_THREAD * 1000;
+		AtomicBoolean failed = new AtomicBoolean(false);
+
+		Thread reader = new Thread(() -> {
+			int lastSize = 0;
+			while (lastSize < total && !failed.get()) {
+				int size = vector.size();
+				if (size < lastSize) {
+					System.out.println("FAILED: size() went from " + lastSize + " to " + size);
+					failed.set(true);
+				}
+				for (int i = lastSize; i < size; i++) {
+					if (vector.readAt(i) == null) {
+						System.out.println("FAILED: index " + i + " < size " + size + " isn't written");
+						failed.set(true);
+						break;
+					}
+				}
+				lastSize = Math.max(lastSize, size);
+			}
+		});
+		reader.start();
+
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int j = 0; j < NUM_THREADS; j++) {
+			final int jCopy = j;
+			threads[j] = new Thread(() -> {
+				for (int i = 0; i < total / NUM_THREADS; i++) vector.pushBack(jCopy * total + i);
+			});
+			threads[j].start();
+		}
+		for (int j = 0; j < NUM_THREADS; j++) threads[j].join();
+		reader.join();
+
+		List<Integer> pushed = new ArrayList<>(), contents = new ArrayList<>();
+		for (int j = 0; j < NUM_THREADS; j++) {
+			for (int i = 0; i < total / NUM_THREADS; i++) pushed.add(j * total + i);
+		}
+		for (int i = 0; i < vector.size(); i++) contents.add(vector.readAt(i));
+		Collections.sort(contents);
+		System.out.println("Pushed: " + pushed.size() + ", size: " + vector.size());
+		if (!pushed.equals(contents)) System.out.println("FAILED: contents != pushed");
+		else if (!failed.get()) System.out.println("OK");
+	}
+	
 	static void useTheStack(LockFreeVectorWithCombining<Integer> stack, int threadNum, 
 			ConcurrentLinkedQueue<Integer> pushQueue, ConcurrentLinkedQueue<Integer> popQueue) {
 		for (int i = 0; i < OPS_PER_THREAD; i++) {